@@ -5,7 +5,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,4 +73,14 @@ public class ConfusionMatrixReader {
         count = count==null?0:count;
         return count + 1; // smoothing
     }
+
+    /**
+     * Returns all unsmoothed entries of the confusion matrix, keyed by
+     * <error>|<correct>, e.g. "c|ct" maps to 36
+     *
+     * @return read-only view of the confusion matrix
+     */
+    public Map<String,Integer> getConfusionMatrix() {
+        return Collections.unmodifiableMap(confusionMatrix);
+    }
 }
@@ -3,8 +3,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class CorpusReader 
@@ -39,6 +41,16 @@ public class CorpusReader
         return value==null?0:value;
     }
     
+    /**
+     * Returns all n-grams in the file with their counts
+     * 
+     * @return read-only view of the n-gram counts
+     */
+    public Map<String,Integer> getNGrams()
+    {
+        return Collections.unmodifiableMap(ngrams);
+    }
+    
     private void readNGrams() throws 
             FileNotFoundException, IOException, NumberFormatException
     {
@@ -0,0 +1,531 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Regression and accuracy/throughput evaluation for the spell corrector.
+ *
+ * Generates a synthetic corpus of misspelled sentences by random walks over
+ * the bigram counts of the corpus, using the error distribution of the confusion matrix, runs one or two
+ * corrector configurations over it in parallel and reports accuracy,
+ * throughput and latency percentiles per sentence length. When two
+ * configurations are given their outputs are compared sentence by sentence.
+ *
+ * Besides "default", configuration "deadline:ms" corrects every sentence
+ * with a deadline of the given number of milliseconds; with many threads
+ * and long sentences this serves as a load test of the tail latency.
+ *
+ * Usage: SpellCheckerEvaluation [--size n] [--min-length n] [--max-length n]
+ *      [--seed n] [--threads n] [--bucket n] [--config name] [--diff name]
+ *      [--save file] [--baseline file]
+ */
+public class SpellCheckerEvaluation {
+
+    /**
+     * A corrector configuration under evaluation.
+     */
+    public interface Corrector {
+        SpellCorrector.Correction correct(String phrase);
+    }
+
+    /**
+     * A generated sentence together with its correct form.
+     */
+    public static class Sample {
+        final String input;
+        final String reference;
+        final int length;
+
+        Sample(String input, String reference) {
+            this.input = input;
+            this.reference = reference;
+            this.length = reference.split(" ").length;
+        }
+    }
+
+    /**
+     * Outputs and latencies of one configuration over a corpus.
+     */
+    public static class Result {
+        final String name;
+        final String[] outputs;
+        final long[] latencies; // nanoseconds per sample, null if unknown
+        final int truncated; // number of corrections cut short by a deadline
+        final long wallTime; // nanoseconds for the whole run
+
+        Result(String name, String[] outputs, long[] latencies, int truncated, long wallTime) {
+            this.name = name;
+            this.outputs = outputs;
+            this.latencies = latencies;
+            this.truncated = truncated;
+            this.wallTime = wallTime;
+        }
+    }
+
+    final static double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    final private List<String> vocabulary;
+    // words following each word in a bigram with a count, and their counts
+    final private Map<String,List<String>> successors = new HashMap<>();
+    final private Map<String,List<Integer>> successorCounts = new HashMap<>();
+    final private List<String> errors = new ArrayList<>(); // <error>|<correct> keys
+    final private List<Integer> errorCounts = new ArrayList<>();
+    final private Random random;
+
+    /**
+     * Constructor.
+     *
+     * @param cr CorpusReader providing the vocabulary and bigram counts
+     * @param cmr ConfusionMatrixReader providing the error distribution
+     * @param seed seed for the corpus generator
+     */
+    public SpellCheckerEvaluation(CorpusReader cr, ConfusionMatrixReader cmr, long seed) {
+        // sort all so that a seed always yields the same corpus
+        vocabulary = new ArrayList<>(cr.vocabulary);
+        Collections.sort(vocabulary);
+        Map<String,Integer> ngrams = new TreeMap<>(cr.getNGrams());
+        for (Map.Entry<String,Integer> entry : ngrams.entrySet()) {
+            String[] bigram = entry.getKey().split(" ");
+            if (bigram.length == 2 && entry.getValue() > 0
+                    && cr.inVocabulary(bigram[0]) && cr.inVocabulary(bigram[1])) {
+                successors.computeIfAbsent(bigram[0], k -> new ArrayList<>()).add(bigram[1]);
+                successorCounts.computeIfAbsent(bigram[0], k -> new ArrayList<>()).add(entry.getValue());
+            }
+        }
+        Map<String,Integer> matrix = new TreeMap<>(cmr.getConfusionMatrix());
+        for (Map.Entry<String,Integer> entry : matrix.entrySet()) {
+            if (entry.getValue() > 0) {
+                errors.add(entry.getKey());
+                errorCounts.add(entry.getValue());
+            }
+        }
+        random = new Random(seed);
+    }
+
+    /**
+     * Generates sentences containing at most 2 misspelled words, never two
+     * consecutive ones, where every misspelling is a single edit drawn from
+     * the confusion matrix.
+     *
+     * Each correct sentence is a random walk that starts at a random
+     * vocabulary word and follows bigrams with a probability proportional to
+     * their counts, so that the corrector has context to work with. When a
+     * word has no successor the walk restarts at a random vocabulary word.
+     *
+     * @param size number of sentences to generate
+     * @param minLength minimum number of words per sentence
+     * @param maxLength maximum number of words per sentence
+     * @return list of generated samples
+     */
+    public List<Sample> generateCorpus(int size, int minLength, int maxLength) {
+        if (minLength < 1 || maxLength < minLength) {
+            throw new IllegalArgumentException("invalid sentence length range.");
+        }
+        List<Sample> corpus = new ArrayList<>(size);
+        for (int s = 0; s < size; s++) {
+            int length = minLength + random.nextInt(maxLength - minLength + 1);
+            String[] reference = new String[length];
+            for (int i = 0; i < length; i++) {
+                reference[i] = i == 0 ? null : nextWord(reference[i - 1]);
+                if (reference[i] == null) {
+                    reference[i] = vocabulary.get(random.nextInt(vocabulary.size()));
+                }
+            }
+
+            String[] input = reference.clone();
+            int mistakes = random.nextInt(Math.min(2, (length + 1) / 2) + 1);
+            int made = 0;
+            for (int attempt = 0; made < mistakes && attempt < 10 * length; attempt++) {
+                int i = random.nextInt(length);
+                // no two consecutive mistakes, and each word at most once
+                if (!input[i].equals(reference[i])
+                        || (i > 0 && !input[i - 1].equals(reference[i - 1]))
+                        || (i < length - 1 && !input[i + 1].equals(reference[i + 1]))) {
+                    continue;
+                }
+                String misspelled = misspell(reference[i]);
+                if (misspelled != null) {
+                    input[i] = misspelled;
+                    made++;
+                }
+            }
+            corpus.add(new Sample(String.join(" ", input), String.join(" ", reference)));
+        }
+        return corpus;
+    }
+
+    /**
+     * Draws the word following the given word, with probability proportional
+     * to the count of the bigram.
+     *
+     * @param word previous word in the sentence
+     * @return next word, or null if no bigram starts with the word
+     */
+    private String nextWord(String word) {
+        List<String> words = successors.get(word);
+        if (words == null) {
+            return null;
+        }
+        List<Integer> counts = successorCounts.get(word);
+        long total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long draw = (long) (random.nextDouble() * total);
+        int w = 0;
+        while (draw >= counts.get(w)) {
+            draw -= counts.get(w);
+            w++;
+        }
+        return words.get(w);
+    }
+
+    /**
+     * Applies a single edit to the word, chosen with probability proportional
+     * to its count in the confusion matrix among all edits that apply.
+     *
+     * @param word correctly spelled word
+     * @return misspelled word, or null if no edit applies
+     */
+    String misspell(String word) {
+        // a leading space marks the start of the word, as in the confusion matrix
+        String padded = " " + word;
+        List<String> options = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        long total = 0;
+        for (int e = 0; e < errors.size(); e++) {
+            String correct = errors.get(e).substring(errors.get(e).indexOf('|') + 1);
+            if (correct.isEmpty()) {
+                continue;
+            }
+            for (int p = padded.indexOf(correct); p >= 0; p = padded.indexOf(correct, p + 1)) {
+                options.add(errors.get(e));
+                positions.add(p);
+                weights.add(errorCounts.get(e));
+                total += errorCounts.get(e);
+            }
+        }
+
+        // draw edits until one yields a different, well-formed word
+        for (int attempt = 0; attempt < 10 && total > 0; attempt++) {
+            long draw = (long) (random.nextDouble() * total);
+            int o = 0;
+            while (draw >= weights.get(o)) {
+                draw -= weights.get(o);
+                o++;
+            }
+            String key = options.get(o);
+            String error = key.substring(0, key.indexOf('|'));
+            String correct = key.substring(key.indexOf('|') + 1);
+            int p = positions.get(o);
+            String result = padded.substring(0, p) + error + padded.substring(p + correct.length());
+            if (result.startsWith(" ") && result.length() > 1
+                    && result.indexOf(' ', 1) < 0 && !result.equals(padded)) {
+                return result.substring(1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the corrector over the corpus using the given number of threads
+     * and records the output and latency for each sentence. A sentence for
+     * which the corrector throws is recorded with an error marker as output.
+     *
+     * @param name name of the configuration
+     * @param corrector the configuration to run
+     * @param corpus samples to correct
+     * @param threads number of worker threads
+     * @return outputs and latencies in corpus order
+     */
+    public static Result evaluate(String name, Corrector corrector, List<Sample> corpus, int threads)
+            throws InterruptedException, ExecutionException {
+        String[] outputs = new String[corpus.size()];
+        long[] latencies = new long[corpus.size()];
+        AtomicInteger truncated = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int s = 0; s < corpus.size(); s++) {
+                final int index = s;
+                futures.add(executor.submit(() -> {
+                    long begin = System.nanoTime();
+                    try {
+                        SpellCorrector.Correction correction = corrector.correct(corpus.get(index).input);
+                        outputs[index] = correction.getPhrase();
+                        if (correction.isTruncated()) {
+                            truncated.incrementAndGet();
+                        }
+                    } catch (RuntimeException ex) {
+                        outputs[index] = "<error: " + ex + ">";
+                    }
+                    latencies[index] = System.nanoTime() - begin;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return new Result(name, outputs, latencies, truncated.get(), System.nanoTime() - start);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Prints accuracy, throughput and latency percentiles per sentence
+     * length bucket.
+     *
+     * @param result result to report on
+     * @param corpus corpus the result was obtained on
+     * @param bucket width of the sentence length buckets in words
+     */
+    public static void report(Result result, List<Sample> corpus, int bucket) {
+        int correct = 0;
+        Map<Integer,List<Long>> byLength = new TreeMap<>();
+        Map<Integer,int[]> accuracyByLength = new TreeMap<>();
+        for (int s = 0; s < corpus.size(); s++) {
+            int b = (corpus.get(s).length - 1) / bucket;
+            int[] acc = accuracyByLength.computeIfAbsent(b, k -> new int[2]);
+            acc[1]++;
+            if (corpus.get(s).reference.equals(result.outputs[s])) {
+                correct++;
+                acc[0]++;
+            }
+            if (result.latencies != null) {
+                byLength.computeIfAbsent(b, k -> new ArrayList<>()).add(result.latencies[s]);
+            }
+        }
+
+        System.out.println("Configuration: " + result.name);
+        System.out.printf("Accuracy: %d/%d (%.2f%%)%n", correct, corpus.size(),
+                100.0 * correct / Math.max(1, corpus.size()));
+        if (result.latencies == null) {
+            System.out.println();
+            return;
+        }
+        System.out.printf("Throughput: %.1f sentences/sec%n",
+                corpus.size() / (result.wallTime / 1e9));
+        System.out.println("Truncated: " + result.truncated + "/" + corpus.size());
+
+        StringBuilder header = new StringBuilder(String.format("%-8s %6s %8s", "words", "count", "accuracy"));
+        for (double p : PERCENTILES) {
+            header.append(String.format(" %9s", "p" + formatPercentile(p)));
+        }
+        header.append(String.format(" %9s", "max"));
+        System.out.println(header + "   (latency in ms)");
+
+        List<Long> all = new ArrayList<>();
+        for (Map.Entry<Integer,List<Long>> entry : byLength.entrySet()) {
+            int b = entry.getKey();
+            String words = (b * bucket + 1) + "-" + ((b + 1) * bucket);
+            int[] acc = accuracyByLength.get(b);
+            System.out.println(latencyLine(words, entry.getValue(), acc[0], acc[1]));
+            all.addAll(entry.getValue());
+        }
+        System.out.println(latencyLine("all", all, correct, corpus.size()));
+        System.out.println();
+    }
+
+    private static String latencyLine(String label, List<Long> latencies, int correct, int count) {
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        StringBuilder line = new StringBuilder(String.format("%-8s %6d %7.2f%%", label, count,
+                100.0 * correct / Math.max(1, count)));
+        for (double p : PERCENTILES) {
+            line.append(String.format(" %9.3f", percentile(sorted, p) / 1e6));
+        }
+        line.append(String.format(" %9.3f", sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6));
+        return line.toString();
+    }
+
+    /**
+     * Returns the nearest-rank percentile of a sorted array.
+     *
+     * @param sorted values in ascending order
+     * @param p percentile between 0 and 100
+     * @return the p-th percentile, or 0 for an empty array
+     */
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    private static String formatPercentile(double p) {
+        return p == Math.floor(p) ? String.valueOf((int) p) : String.valueOf(p);
+    }
+
+    /**
+     * Compares two results output for output and prints every sentence on
+     * which they differ, followed by a summary of fixed and broken sentences.
+     *
+     * @param a first result, e.g. the baseline
+     * @param b second result, e.g. the candidate optimization
+     * @param corpus corpus both results were obtained on
+     * @return number of sentences on which the outputs differ
+     */
+    public static int diff(Result a, Result b, List<Sample> corpus) {
+        int differ = 0, fixed = 0, broken = 0;
+        for (int s = 0; s < corpus.size(); s++) {
+            if (a.outputs[s].equals(b.outputs[s])) {
+                continue;
+            }
+            differ++;
+            String reference = corpus.get(s).reference;
+            if (reference.equals(b.outputs[s])) {
+                fixed++;
+            } else if (reference.equals(a.outputs[s])) {
+                broken++;
+            }
+            System.out.println("Input    : " + corpus.get(s).input);
+            System.out.println("Reference: " + reference);
+            System.out.println(a.name + ": " + a.outputs[s]);
+            System.out.println(b.name + ": " + b.outputs[s]);
+            System.out.println();
+        }
+        System.out.println("Diff " + a.name + " -> " + b.name + ": " + differ + "/" + corpus.size()
+                + " outputs differ, " + fixed + " fixed, " + broken + " broken");
+        return differ;
+    }
+
+    /**
+     * Returns the corrector configuration with the given name.
+     *
+     * @param sc SpellCorrector to configure
+     * @param name "default" or "deadline:ms"
+     * @return the configuration
+     */
+    static Corrector configuration(SpellCorrector sc, String name) {
+        if (name.equals("default")) {
+            return phrase -> sc.correctPhrase(phrase, SpellCorrector.NO_DEADLINE);
+        }
+        if (name.startsWith("deadline:")) {
+            long budget = (long) (Double.parseDouble(name.substring("deadline:".length())) * 1e6);
+            return phrase -> sc.correctPhrase(phrase, System.nanoTime() + budget);
+        }
+        throw new IllegalArgumentException("unknown configuration " + name
+                + ", available: default, deadline:ms");
+    }
+
+    static void save(Result result, String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"))) {
+            for (String output : result.outputs) {
+                out.println(output);
+            }
+        }
+    }
+
+    static Result load(String file, int size) throws IOException {
+        List<String> outputs = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                outputs.add(line);
+            }
+        }
+        if (outputs.size() != size) {
+            throw new IllegalArgumentException("baseline " + file + " has " + outputs.size()
+                    + " outputs, expected " + size + "; use the same --size and --seed.");
+        }
+        return new Result(file, outputs.toArray(new String[0]), null, 0, 0);
+    }
+
+    /**
+     * @param args the command line arguments, see the class description
+     */
+    public static void main(String[] args) {
+        int size = 1000;
+        int minLength = 1;
+        int maxLength = 30;
+        long seed = 42;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int bucket = 5;
+        String config = "default";
+        String diffConfig = null;
+        String saveFile = null;
+        String baselineFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                throw new IllegalArgumentException("missing value for " + args[i]);
+            }
+            switch (args[i++]) {
+                case "--size": size = Integer.parseInt(value); break;
+                case "--min-length": minLength = Integer.parseInt(value); break;
+                case "--max-length": maxLength = Integer.parseInt(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--bucket": bucket = Integer.parseInt(value); break;
+                case "--config": config = value; break;
+                case "--diff": diffConfig = value; break;
+                case "--save": saveFile = value; break;
+                case "--baseline": baselineFile = value; break;
+                default: throw new IllegalArgumentException("unknown option " + args[i - 1]);
+            }
+        }
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("--threads must be at least 1.");
+        }
+        if (bucket < 1) {
+            throw new IllegalArgumentException("--bucket must be at least 1.");
+        }
+
+        try {
+            CorpusReader cr = new CorpusReader();
+            ConfusionMatrixReader cmr = new ConfusionMatrixReader();
+            SpellCorrector sc = new SpellCorrector(cr, cmr);
+            Corrector corrector = configuration(sc, config);
+            Corrector diffCorrector = diffConfig == null ? null : configuration(sc, diffConfig);
+
+            SpellCheckerEvaluation evaluation = new SpellCheckerEvaluation(cr, cmr, seed);
+            List<Sample> corpus = evaluation.generateCorpus(size, minLength, maxLength);
+
+            Result result = evaluate(config, corrector, corpus, threads);
+            report(result, corpus, bucket);
+            if (saveFile != null) {
+                save(result, saveFile);
+            }
+            if (diffConfig != null) {
+                Result other = evaluate(diffConfig, diffCorrector, corpus, threads);
+                report(other, corpus, bucket);
+                diff(result, other, corpus);
+            }
+            if (baselineFile != null) {
+                Result baseline = load(baselineFile, corpus.size());
+                report(baseline, corpus, bucket);
+                diff(baseline, result, corpus);
+            }
+        } catch (Exception ex) {
+            System.out.println(ex);
+            ex.printStackTrace();
+        }
+    }
+}
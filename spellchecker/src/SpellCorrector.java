@@ -1,5 +1,9 @@
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -8,6 +12,39 @@ public class SpellCorrector {
     final private ConfusionMatrixReader cmr;
     
     final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz'".toCharArray();
+    
+    /**
+     * Deadline value meaning that a correction may take as long as it needs.
+     */
+    public final static long NO_DEADLINE = Long.MAX_VALUE;
+    
+    /**
+     * Result of a deadline-aware correction.
+     */
+    public static class Correction {
+        final private String phrase;
+        final private boolean truncated;
+        
+        Correction(String phrase, boolean truncated) {
+            this.phrase = phrase;
+            this.truncated = truncated;
+        }
+        
+        /**
+         * @return the corrected phrase
+         */
+        public String getPhrase() {
+            return phrase;
+        }
+        
+        /**
+         * @return true if the deadline passed before the search was complete,
+         *  in which case the phrase is the best correction found so far
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
         
     /**
      * Constructor.
@@ -29,6 +66,29 @@ public class SpellCorrector {
      * @return plausible correction for the phrase.
      */
     public String correctPhrase(String phrase) {
+        return correctPhrase(phrase, NO_DEADLINE).getPhrase();
+    }
+    
+    /**
+     * Corrects a phrase like {@link #correctPhrase(String)}, but gives up
+     * searching once the deadline has passed and returns the best correction
+     * found so far.
+     * 
+     * The deadline is checked while generating candidates and combinations.
+     * Words that are not in the vocabulary are fixed first; when the deadline
+     * passes during that phase the remaining ones are left as they are and
+     * the search for real-word errors is skipped. When it passes during the
+     * real-word error search, only the candidate sentences found so far are
+     * considered. Combinations are tried with the fewest corrections first,
+     * in a fixed order; if not even the first one was complete, the phrase
+     * with just the out-of-vocabulary words corrected is returned.
+     * 
+     * @param phrase possibly incorrectly spelled phrase.
+     * @param deadline value of {@link System#nanoTime()} after which the
+     *  search stops, or {@link #NO_DEADLINE}
+     * @return plausible correction for the phrase and whether it was truncated.
+     */
+    public Correction correctPhrase(String phrase, long deadline) {
         if (phrase == null || phrase.length() == 0) {
             throw new IllegalArgumentException("phrase must be non-empty.");
         }
@@ -42,14 +102,28 @@ public class SpellCorrector {
         String finalSuggestion = "";
         double highestProb;
         
+        // set once the deadline has passed and the search was cut short
+        boolean truncated = false;
+        
         // Fix the words that are not in the vocabulary
         for (int i = 0; i < words.length; i++) { // for all words in the phrase ...
             if (!cr.inVocabulary(words[i])) { // ... that are not in the vocabulary ...
+                if (deadlinePassed(deadline)) {
+                    // out of time, leave the remaining words as they are
+                    truncated = true;
+                    break;
+                }
                 // ... we look for the word in the vocabulary that has the highest probability
                 highestProb = Integer.MIN_VALUE;
                 String correction = ""; // default to empty strings
                 // get all the candidate words for this word along with their probabilities
-                Map<String,Double> candidates = getCandidateWords(words[i]);
+                Map<String,Double> candidates = getCandidateWords(words[i], deadline);
+                if (deadlinePassed(deadline)) {
+                    // the candidates may be incomplete, leave this and the
+                    // remaining words as they are
+                    truncated = true;
+                    break;
+                }
                 // for all candidate words check the probabilities of their bigrams
                 for (String canWord : candidates.keySet()) {
                     double prob = Math.log(candidates.get(canWord)); // probability for the correction
@@ -86,22 +160,37 @@ public class SpellCorrector {
                 if (correctedWords == 2) {
                     // if we have already corrected two words, stop here, we are done
                     finalSuggestion = String.join(" ", words);
-                    return finalSuggestion.trim();
+                    return new Correction(finalSuggestion.trim(), truncated);
                 }
             }
         }
         
-        // get all combinations of words that contain an error
-        HashSet<boolean[]> errorCombinations = 
-                getErrorCombinations(correctedWords, words.length, phrase, 2);
+        if (truncated || deadlinePassed(deadline)) {
+            // out of time, skip the search for real-word errors
+            finalSuggestion = String.join(" ", words);
+            return new Correction(finalSuggestion.trim(), true);
+        }
+        
+        // get all combinations of words that contain an error, in a fixed
+        // order with the fewest corrections first, so that a truncated
+        // search always considers the same and cheapest combinations
+        List<boolean[]> errorCombinations = new ArrayList<>(
+                getErrorCombinations(correctedWords, words.length, phrase, 2));
+        Collections.sort(errorCombinations, SpellCorrector::compareErrorCombinations);
         
         // look for best candidate sentences
-        Map<String[],double[]> candidateSentences = new HashMap();
+        Map<String[],double[]> candidateSentences = new LinkedHashMap<>();
         for (boolean[] errorCombi: errorCombinations) {
-            getCandidateSentence(errorCombi, candidateSentences, words);
+            if (!getCandidateSentence(errorCombi, candidateSentences, words, deadline)) {
+                // out of time, only consider the sentences found so far
+                truncated = true;
+                break;
+            }
         }
         
-        //evaluate the candidate sentences and pick the best
+        //evaluate the candidate sentences and pick the best, falling back to
+        //the sentence with only the out-of-vocabulary words corrected if the
+        //deadline passed before the first combination was complete
         highestProb = Integer.MIN_VALUE;
         suggestion = words;
         for (String[] canSen : candidateSentences.keySet()) { // evaluate each candidate
@@ -123,8 +212,45 @@ public class SpellCorrector {
         
         finalSuggestion = String.join(" ", suggestion);
         
-        return finalSuggestion.trim();
-    }    
+        return new Correction(finalSuggestion.trim(), truncated);
+    }
+    
+    /**
+     * Orders error combinations by the number of words assumed wrong, then
+     * by the positions of those words.
+     * 
+     * @param a error combination
+     * @param b error combination of the same length
+     * @return negative, zero or positive as a comes before, equals or comes after b
+     */
+    private static int compareErrorCombinations(boolean[] a, boolean[] b) {
+        int errorsA = 0;
+        int errorsB = 0;
+        for (int i = 0; i < a.length; i++) {
+            errorsA += a[i] ? 1 : 0;
+            errorsB += b[i] ? 1 : 0;
+        }
+        if (errorsA != errorsB) {
+            return Integer.compare(errorsA, errorsB);
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return a[i] ? -1 : 1; // earlier error first
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Returns whether the deadline has passed.
+     * 
+     * @param deadline value of {@link System#nanoTime()}, or {@link #NO_DEADLINE}
+     * @return true if the deadline has passed
+     */
+    private static boolean deadlinePassed(long deadline) {
+        // compare the difference, nanoTime may overflow
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+    }
     
     //combines the probabilities for all the bigrams in a sentence
     public double evaluateBigramSentence(String[] words) {
@@ -152,7 +278,23 @@ public class SpellCorrector {
      * @param sentences map of sentences it will add a sentence to
      * @param words original sentence
      */
+    @SuppressWarnings("unchecked")
     public void getCandidateSentence(boolean[] errorCombination, Map sentences, String[] words) {
+        getCandidateSentence(errorCombination, sentences, words, NO_DEADLINE);
+    }
+    
+    /**
+     * Like {@link #getCandidateSentence(boolean[], Map, String[])}, but adds
+     * nothing if the deadline passes before the sentence is complete.
+     * 
+     * @param errorCombination indicates which words in the sentence are considered wrong
+     * @param sentences map of sentences it will add a sentence to
+     * @param words original sentence
+     * @param deadline value of {@link System#nanoTime()}, or {@link #NO_DEADLINE}
+     * @return false if the deadline passed and no sentence was added
+     */
+    boolean getCandidateSentence(boolean[] errorCombination, Map<String[],double[]> sentences,
+            String[] words, long deadline) {
         double[] probabilities = new double[words.length]; // noisy channel probabilities per word
         String[] newSentence = words.clone();
         for (int i = 0; i < words.length; i++) {
@@ -160,7 +302,10 @@ public class SpellCorrector {
                 double prob;
                 double highestProb = Integer.MIN_VALUE;
                 String finalCandidate = "";
-                Map<String,Double> candidates = getCandidateWords(words[i]);
+                Map<String,Double> candidates = getCandidateWords(words[i], deadline);
+                if (deadlinePassed(deadline)) {
+                    return false; // the candidates may be incomplete
+                }
                 // loop over all candidate words and determine the best option
                 for (String canWord : candidates.keySet()) {
                     prob = 0;
@@ -190,6 +335,7 @@ public class SpellCorrector {
             }
         }
         sentences.put(newSentence, probabilities); // add sentence to map
+        return true;
     }
     
     /**
@@ -275,6 +421,19 @@ public class SpellCorrector {
      * @return map with candidate words and their noisy channel probability
      */
     public Map<String,Double> getCandidateWords(String word)
+    {
+        return getCandidateWords(word, NO_DEADLINE);
+    }
+    
+    /**
+     * Like {@link #getCandidateWords(String)}, but stops generating candidates
+     * once the deadline has passed and returns the ones found so far.
+     * 
+     * @param word word to find candidates for
+     * @param deadline value of {@link System#nanoTime()}, or {@link #NO_DEADLINE}
+     * @return map with candidate words and their noisy channel probability
+     */
+    Map<String,Double> getCandidateWords(String word, long deadline)
     {
         Map<String,Double> mapOfWords = new HashMap<>();
         
@@ -290,6 +449,9 @@ public class SpellCorrector {
         
         // fix by insertion
         for (int i = 0; i <= word.length(); i++) { // for all characters in word
+            if (deadlinePassed(deadline)) {
+                return mapOfWords; // out of time, return candidates so far
+            }
             for (char c : ALPHABET) { // for all characters in alphabet
                 // generate new word where c is inserted at position i
                 newWord = word.substring(0, i) + c;
@@ -315,6 +477,9 @@ public class SpellCorrector {
         }
         
         for (int i = 0; i < word.length(); i++) { // for all characters in word
+            if (deadlinePassed(deadline)) {
+                return mapOfWords; // out of time, return candidates so far
+            }
             // fix by substitution
             for (char c : ALPHABET) { // for all characters in alphabet
                 // generate new word where word[i] is substituted with c
@@ -354,6 +519,9 @@ public class SpellCorrector {
               
         // fix by transposition
         for (int i = 0; i < word.length() - 1; i++) { // for all characters in word
+            if (deadlinePassed(deadline)) {
+                return mapOfWords; // out of time, return candidates so far
+            }
             // generate new word where character i is switched with character i+1
             newWord = word.substring(0, i) + word.charAt(i + 1) + word.charAt(i)
                     + word.substring(i+2, word.length());